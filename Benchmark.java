@@ -0,0 +1,187 @@
+// Benchmarks comparing different ways of compiling the same pattern
+// Usage: java Benchmark
+// Each measurement runs in a JVM of its own, so what the JIT learnt from one does not slow down or speed up another
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+
+public class Benchmark {
+	// Number of untimed passes over the text before timing, so the JIT has settled
+	private static final int WARMUP = 3;
+	// Number of timed passes over the text
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) {
+		try {
+			// A child JVM is given the compiler options and pattern to measure
+			if (args.length > 0 && args[0].equals("run")) {
+				String[] compilerArgs = new String[args.length - 2];
+				System.arraycopy(args, 2, compilerArgs, 0, compilerArgs.length);
+				run(compilerArgs[compilerArgs.length - 1], args[1], compile(compilerArgs), text());
+			}
+			else {
+				counters();
+				engines();
+				ignoreCase();
+			}
+		}
+		catch (Exception ex) {
+			// Catching all exceptions in main and printing relevant information
+			System.err.println("ERROR - " + ex.getMessage());
+			ex.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	// Compares counted repetitions given counters (-c) against the same repetitions written out copy by copy (-u)
+	// Counters make the FSM far smaller, but searching with them is slower, as each character also goes through the LOOP state,
+	// so without -c or -u the Compiler only gives a repetition a counter when its copies would not fit in Compiler.unrollBudget states
+	private static void counters() throws IOException, InterruptedException {
+		System.out.println("Counted repetition: counter states vs unrolled copies");
+		// The fifth pattern has a counter inside a starred group, which once sent the counter's LOOP state to the star instead
+		String[] patterns = new String[] {"id=[0123456789]{1,12};", "ERROR.{0,60}timeout", "a{20,40}b", "^.{80,}$", "b(a{4}b)* c", "ERROR.{0,900}timeout"};
+		for (String pattern : patterns) {
+			sameMatches(pattern, null, text());
+			fork("counter", "-c", pattern);
+			fork("unrolled", "-u", pattern);
+		}
+		// A repeated group with a | in it is always written out copy by copy, and once linked its copies up wrongly
+		String[][] pasted = new String[][] {
+			{"(b|.+){2}c", "(b|.+)(b|.+)c"},
+			{"(b|a*){2}c", "(b|a*)(b|a*)c"},
+			{"(b|a+){2,} c", "(b|a+)(b|a+)+ c"},
+			{"(a|b+){3} ", "(a|b+)(a|b+)(a|b+) "},
+		};
+		for (String[] pattern : pasted) {
+			sameMatches(pattern[0], pattern[1], text());
+		}
+	}
+
+	// Compares running the FSM in the interpreter against running it in a class generated for it (Searcher -g)
+	private static void engines() throws IOException, InterruptedException {
+		System.out.println("Engines: interpreter vs generated class");
+		String[] patterns = new String[] {"ERROR.*timeout", "id=[0123456789]+;", "(a|b)*bbb(a|b)*bbb", "^WARN.*cache miss$"};
+		for (String pattern : patterns) {
+			fork("interpret", "-r", pattern);
+			fork("generated", "-r", pattern);
+		}
+	}
+
+	// Compares matching letters in either case with -i against writing out both cases of every letter as a [ ] list
+	private static void ignoreCase() throws IOException, InterruptedException {
+		System.out.println("Either case: -i sets vs [ ] lists of both cases");
+		String[][] patterns = new String[][] {
+			{"error.*timeout", "[eE][rR][rR][oO][rR].*[tT][iI][mM][eE][oO][uU][tT]"},
+			{"warn id=", "[wW][aA][rR][nN] [iI][dD]="},
+		};
+		for (String[] pattern : patterns) {
+			fork("folded", "-i", pattern[0]);
+			fork("lists", pattern[1]);
+		}
+	}
+
+	// Checks the pattern as the Compiler chooses to compile it, its counter and unrolled forms, and the pattern written out by hand
+	// (if not null), forwards and reversed, all match exactly the same lines of the text
+	private static void sameMatches(String pattern, String pasted, String[] text) throws IOException {
+		String[][] forms = new String[][] {{pattern}, {"-c", pattern}, {"-u", pattern}, {"-r", pattern}, {"-r", "-c", pattern}, {"-r", "-u", pattern}, {pasted}, {"-r", pasted}};
+		if (pasted == null) {
+			forms = Arrays.copyOf(forms, 6);
+		}
+		Searcher[] searchers = new Searcher[forms.length];
+		for (int i = 0; i < forms.length; i++) {
+			FSM[] fsms = compile(forms[i]);
+			searchers[i] = new Searcher(fsms[0], fsms[1]);
+		}
+		for (String line : text) {
+			for (int i = 1; i < searchers.length; i++) {
+				if (searchers[i].matches(line) != searchers[0].matches(line)) {
+					throw new IOException(String.join(" ", forms[i]) + " does not match the same lines as " + pattern + ", such as: " + line);
+				}
+			}
+		}
+	}
+
+	// Returns the command to run the given class with the given arguments in a new JVM with the same class path as this one
+	private static String[] javaCommand(String mainClass, String[] args) {
+		String[] command = new String[args.length + 4];
+		command[0] = System.getProperty("java.home") + "/bin/java";
+		command[1] = "-cp";
+		command[2] = System.getProperty("java.class.path");
+		command[3] = mainClass;
+		System.arraycopy(args, 0, command, 4, args.length);
+		return command;
+	}
+
+	// Measures one form of a pattern in a child JVM, which prints its own result
+	private static void fork(String form, String... compilerArgs) throws IOException, InterruptedException {
+		String[] args = new String[compilerArgs.length + 2];
+		args[0] = "run";
+		args[1] = form;
+		System.arraycopy(compilerArgs, 0, args, 2, compilerArgs.length);
+		if (new ProcessBuilder(javaCommand("Benchmark", args)).inheritIO().start().waitFor() != 0) {
+			throw new IOException("Measuring " + form + " " + compilerArgs[compilerArgs.length - 1] + " failed");
+		}
+	}
+
+	// Compiles the pattern with the given compiler options (the pattern comes last) and reads back the FSMs the Compiler describes
+	private static FSM[] compile(String... args) throws IOException {
+		boolean reverse = Arrays.asList(args).contains("-r");
+		int budget = Arrays.asList(args).contains("-u") ? Integer.MAX_VALUE : Arrays.asList(args).contains("-c") ? 0 : Compiler.unrollBudget;
+		boolean ignoreCase = Arrays.asList(args).contains("-i");
+		String description = new Compiler(reverse, budget, ignoreCase).compile(args[args.length - 1]);
+		return Searcher.read(new BufferedReader(new StringReader(description)));
+	}
+
+	// Times searching every line of the text and prints the average time per pass
+	private static void run(String pattern, String form, FSM[] fsms, String[] text) {
+		Searcher searcher = new Searcher(fsms[0], fsms[1], form.equals("generated"));
+		// Say so when no class could be generated, as the time is then the interpreter's
+		if (form.equals("generated") && !searcher.isGenerated()) {
+			form = "fallback";
+		}
+		int matches = 0;
+		for (int i = 0; i < WARMUP; i++) {
+			matches = search(searcher, text);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			matches = search(searcher, text);
+		}
+		long perRound = (System.nanoTime() - start) / ROUNDS;
+		System.out.printf("%-26s %-9s %5d states %6d matches %10.2f ms%n", pattern, form, fsms[0].size(), matches, perRound / 1e6);
+	}
+
+	// Returns the number of lines of the text that contain a match
+	private static int search(Searcher searcher, String[] text) {
+		int matches = 0;
+		for (String line : text) {
+			if (searcher.matches(line)) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+
+	// Makes the same 2000 lines that look like a log every time, so that each pattern matches some lines and only nearly matches most others
+	private static String[] text() {
+		Random random = new Random(1);
+		int count = 2000;
+		String[] levels = new String[] {"INFO", "WARN", "ERROR"};
+		String[] events = new String[] {"request served", "connection timeout", "cache miss", "retrying after timeout"};
+		String[] lines = new String[count];
+		for (int i = 0; i < count; i++) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(levels[random.nextInt(levels.length)]).append(' ');
+			sb.append("id=").append(Math.abs(random.nextLong()) % (long) Math.pow(10, 1 + random.nextInt(14))).append("; ");
+			for (int k = random.nextInt(40); k > 0; k--) {
+				sb.append(random.nextInt(4) == 0 ? 'b' : 'a');
+			}
+			sb.append(' ').append(events[random.nextInt(events.length)]);
+			lines[i] = sb.toString();
+		}
+		return lines;
+	}
+}
@@ -6,6 +6,11 @@
  *	each line of output includes four things: the state-number, the input-symbol(s) 
  *	this state must match (or branch-state indicator), and two numbers indicating the 
  *	two possible next states if a match is made.
+ *	With -b it instead accepts a file with one regexp pattern per line, compiles them all
+ *	at once on a pool of threads (each with a Compiler of its own), and produces one
+ *	bundle holding every FSM. A pattern with an error is reported and the rest carry on.
+ *	With -i letters match in either case: each literal and list becomes one state holding
+ *	every case of its letters, so the Searcher still reads each character only once.
  *  
  *  GRAMMAR
  *	--------
@@ -17,12 +22,17 @@
  *	T -> F*
  *	T -> F?
  *	T -> F+
+ *	T -> F{N}
+ *	T -> F{N,}
+ *	T -> F{N,N}
  *  F -> \V 
  *  F -> V
  *  F -> .
  *  F -> (E)
  *  F -> [L]
  *  F -> ![L]!
+ *  F -> ^
+ *  F -> $
  *
  *	E = expression 
  *	A = alternation 
@@ -30,30 +40,45 @@
  *	F = factor 
  *	V = vocab/literal
  *  L = list of literals
+ *  N = number
  *
  * 
  *  Authors: Sacha Raman and Elizabeth Macken
  *  
  */
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 public class Compiler {
 	
 	//the position in the regexp
-	private static int j;
+	private int j;
 	//an array to store the regexp
-	private static char[] p;
+	private char[] p;
 	//array to store character expected to read
-	private static char[] ch = new char[100];
+	private char[] ch;
 	//array to store all special symbols
-	private static char[] special = new char[] {'.', '*', '+', '?', '|', '(', ')', '[', ']', '!', '\\'};
+	private static char[] special = new char[] {'.', '*', '+', '?', '|', '(', ')', '[', ']', '!', '\\', '^', '$', '{', '}'};
 	//array to store next two states
-	private static int[] next1 = new int[100];
-	private static int[] next2 = new int[100];
+	private int[] next1;
+	private int[] next2;
 	//state number
-	private static int state = 1;
+	private int state;
 	//flag for closure
-	private static boolean closure = false;
+	private boolean closure;
 	//counter for parentheses ( )
-	private static int parentheses = 0;
+	private int parentheses;
 	//char for empty - right ways dashed arrow
 	private static char empty = '\u21E2';
 	//char for branch - branch shaped symbol
@@ -62,14 +87,148 @@ public class Compiler {
 	private static char finished = '\u21E5';
 	//char for wild - tiny star
 	private static char wild = '\u2b51';
+	//char for start of line anchor - leftwards arrow to bar
+	private static char bol = '\u21E4';
+	//char for end of line anchor - rightwards arrow to bar over
+	private static char eol = '\u2912';
+	//char for counter - circle arrow
+	private static char count = '\u21BB';
+	//char for the end of a counter's body - back arrow
+	private static char loop = '\u21A9';
+	//char for a set of literals - element of
+	private static char set = '\u2208';
+	//arrays to store the least and most number of times a counter's body can repeat (-1 for no most)
+	private int[] low;
+	private int[] high;
+	//array to store the literals a set state matches (null for other states)
+	private String[] sets;
+	//a counted repetition whose copies would take at most this many states is written out copy by copy,
+	//as searching is faster with copies than with a counter, a bigger one is given a counter instead
+	static int unrollBudget = 1000;
+	//the biggest number allowed in { }, a counter keeps a bit for every count up to its bound
+	private static int maxRepeat = 1000;
+	//for every char, the other chars whose upper case has it as its lower case (null if there are
+	//none), made once for fold()
+	private static String[] cases = new String[Character.MAX_VALUE + 1];
+	static {
+		for(int k = Character.MIN_VALUE; k <= Character.MAX_VALUE; k++) {
+			char c = (char) k;
+			char folded = Character.toLowerCase(Character.toUpperCase(c));
+			if(folded != c) {
+				cases[folded] = (cases[folded] == null) ? Character.toString(c) : cases[folded] + c;
+			}
+		}
+	}
+	//flag for emitting the reversed fsm after the forward one
+	private boolean reverse;
+	//the most states a counted repetition may be written out in (unrollBudget unless comparing
+	//counters against copies)
+	private int budget;
+	//flag for matching letters in either case
+	private boolean ignoreCase;
+	//the description of the fsm being produced
+	private StringBuilder output;
+	
+	//takes whether to produce the reversed fsm too, the most states a counted repetition may be
+	//written out in before it is given a counter, and whether letters match in either case
+	public Compiler(boolean reverse, int budget, boolean ignoreCase) {
+		this.reverse = reverse;
+		this.budget = budget;
+		this.ignoreCase = ignoreCase;
+	}
+	
+	//compiles a regexp and returns the description of its fsm (followed by REVERSE and the
+	//reversed fsm if asked for), one state per line
+	//throws IllegalArgumentException if the regexp is not valid
+	public String compile(String regexp) {
+		//start from nothing, so a Compiler can be used for one regexp after another
+		p = regexp.toCharArray();
+		j = 0;
+		ch = new char[100];
+		next1 = new int[100];
+		next2 = new int[100];
+		low = new int[100];
+		high = new int[100];
+		sets = new String[100];
+		state = 1;
+		closure = false;
+		parentheses = 0;
+		output = new StringBuilder();
+		//call the parse() method
+		parse();
+		return output.toString();
+	}
 	
 	
 	//takes a state number, a character and the next two states to store into our next two arrays
-	private static void setState(int s, char c, int n1, int n2){
+	private void setState(int s, char c, int n1, int n2){
+		//make the arrays bigger if the fsm has outgrown them
+		if(s >= ch.length) {
+			int size = Math.max(s + 1, ch.length * 2);
+			ch = Arrays.copyOf(ch, size);
+			next1 = Arrays.copyOf(next1, size);
+			next2 = Arrays.copyOf(next2, size);
+			low = Arrays.copyOf(low, size);
+			high = Arrays.copyOf(high, size);
+			sets = Arrays.copyOf(sets, size);
+		}
 		//store values into array for that state
 		ch[s] = c;
 		next1[s] = n1;
 		next2[s] = n2;
+		sets[s] = null;
+	}
+	
+	//takes a state number, the literals it matches and the next two states
+	//a single literal gets a literal state, more than one get a set state
+	private void setLiterals(int s, String literals, int n1, int n2) {
+		if(literals.length() == 1) {
+			setState(s, literals.charAt(0), n1, n2);
+		}
+		else {
+			setState(s, set, n1, n2);
+			sets[s] = literals;
+		}
+	}
+	
+	//returns the literals given, with every char String.equalsIgnoreCase treats as equal to one of them
+	//added if letters match in either case
+	private String fold(String literals) {
+		if(!ignoreCase) {
+			return literals;
+		}
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < literals.length(); i++) {
+			//String.equalsIgnoreCase treats two chars as equal when the lower cases of their upper cases
+			//are the same, so c matches every char that folds to the same one, such as s, S and the
+			//long s, or k, K and the kelvin sign
+			char folded = Character.toLowerCase(Character.toUpperCase(literals.charAt(i)));
+			String same = (cases[folded] == null) ? Character.toString(folded) : folded + cases[folded];
+			for(int x = 0; x < same.length(); x++) {
+				char k = same.charAt(x);
+				//the char it folds to is not always one of them itself
+				if(Character.toLowerCase(Character.toUpperCase(k)) == folded && sb.indexOf(Character.toString(k)) == -1) {
+					sb.append(k);
+				}
+			}
+		}
+		return sb.toString();
+	}
+	
+	//makes every state below limit that points to from point to to instead
+	//a counter's loop state is left alone, as it must always go back to its own counter
+	private void redirect(int from, int to, int limit) {
+		for(int i = 0; i < limit; i++) {
+			if(ch[i] == loop) {
+				continue;
+			}
+			if(next1[i] == from) {
+				next1[i] = to;
+			}
+			if(next2[i] == from) {
+				next2[i] = to;
+			}
+		}
 	}
 	
 	//checks if a symbol is a literal (vocab) or is special
@@ -84,7 +243,7 @@ public class Compiler {
 	}
 	
 	//print the three arrays pretty to standard error
-	private static void printFSMPretty() {
+	private void printFSMPretty() {
 		System.err.println("s   ch  1   2  ");
 		System.err.println("---+---+---+---");
 		for(int i = 0; i <= state; i++) {	
@@ -93,10 +252,11 @@ public class Compiler {
 		System.err.println();
 	}
 	
-	//print the fsm to standard output to be read in by the REsearch
-	private static void printFSM() {
+	//print the fsm to the output to be read in by the REsearch
+	//takes the arrays describing the fsm and the number of its last state
+	private void printFSM(char[] ch, int[] next1, int[] next2, int[] low, int[] high, String[] sets, int last) {
 		String symbol;
-		for(int i = 0; i <= state; i++) {
+		for(int i = 0; i <= last; i++) {
 			if(ch[i] == empty || ch[i] == branch) {
 				symbol = "BRANCH";
 			}
@@ -109,22 +269,41 @@ public class Compiler {
 			else if(ch[i] == finished) {
 				symbol = "FINISHED";
 			}
+			else if(ch[i] == bol) {
+				symbol = "BOL";
+			}
+			else if(ch[i] == eol) {
+				symbol = "EOL";
+			}
+			else if(ch[i] == count) {
+				symbol = "COUNT{" + low[i] + "," + (high[i] == -1 ? "" : Integer.toString(high[i])) + "}";
+			}
+			else if(ch[i] == loop) {
+				symbol = "LOOP";
+			}
+			else if(ch[i] == set) {
+				//the literals are written as numbers, as they could be spaces or anything else
+				StringBuilder sb = new StringBuilder("SET{");
+				for(int k = 0; k < sets[i].length(); k++) {
+					sb.append(k == 0 ? "" : ",").append((int) sets[i].charAt(k));
+				}
+				symbol = sb.append("}").toString();
+			}
 			else {
 				symbol = Character.toString(ch[i]);
 			}
-			System.out.println(i + " " + symbol + " " + next1[i] + " " + next2[i]);
+			output.append(i).append(' ').append(symbol).append(' ').append(next1[i]).append(' ').append(next2[i]).append('\n');
 		}
 	}
 	
 	//method called when an error occurs while parsing and compiling the fsm
-	private static void error(String errorMessage) {
-		System.err.println("Error: " + errorMessage);
-		//return
-		System.exit(0);		
+	private void error(String errorMessage) {
+		//stop compiling this regexp, whoever called compile() reports it
+		throw new IllegalArgumentException(errorMessage);
 	}
 
 	//method called by main, sets the initial state, calls expression()
-	private static void parse() {
+	private void parse() {
 		int initial;
 		//set the 0 state (temporarily)
 		setState(state - 1, empty, 1, 1);
@@ -134,13 +313,229 @@ public class Compiler {
 		setState(0, empty, initial, initial);
 		//set the final state to point to start
 		setState(state, finished, 0, 0);
-		//print out the fsm pretty to standard error and output
-		printFSMPretty();
-		printFSM();
+		//print out the fsm to the output
+		printFSM(ch, next1, next2, low, high, sets, state);
+		//if asked, follow the forward fsm with the reversed one
+		if(reverse) {
+			output.append("REVERSE\n");
+			reverseFSM();
+		}
+	}
+	
+	//arrays to store the reversed fsm, filled in by reverseFSM()
+	private char[] rch;
+	private int[] rnext1;
+	private int[] rnext2;
+	private int[] rlow;
+	private int[] rhigh;
+	private String[] rsets;
+	//the next free state number in the reversed fsm
+	private int rstate;
+	//the reversed state each forward state becomes, and the reversed state to
+	//enter it through (differs for the wildcard of a ![ ]! list)
+	private int[] rnum;
+	private int[] rentry;
+	//the trap states of each ![ ]! list, stored against the wildcard that ends the list
+	private int[][] traps;
+	private int[] trapCount;
+	
+	//builds the reversed fsm and prints it to standard output. Reading a line from right
+	//to left through this fsm matches exactly what the forward fsm matches from left to
+	//right, so a match that must end at the end of the line ($) can be checked from the
+	//right, and the point where the reversed fsm finishes is where the match started
+	private void reverseFSM() {
+		//find every state that can be reached from the start state
+		boolean[] reachable = new boolean[state + 1];
+		int[] stack = new int[2 * (state + 1)];
+		int top = 0;
+		stack[top++] = 0;
+		while(top > 0) {
+			int s = stack[--top];
+			if(s < 0 || reachable[s]) {
+				continue;
+			}
+			reachable[s] = true;
+			//do not walk out of the final state, it points back to the start
+			if(s != state) {
+				stack[top++] = next1[s];
+				stack[top++] = next2[s];
+			}
+		}
+		
+		//for every reachable state, record the states that lead into it
+		//each state's list starts small and grows, as most states only have one or two
+		int[][] preds = new int[state + 1][];
+		int[] predCount = new int[state + 1];
+		traps = new int[state + 1][];
+		trapCount = new int[state + 1];
+		for(int i = 0; i <= state; i++) {
+			preds[i] = new int[2];
+			traps[i] = new int[1];
+		}
+		for(int i = 0; i < state; i++) {
+			if(!reachable[i]) {
+				continue;
+			}
+			//a state pointing to -1 is a trap of a ![ ]! list
+			if(next1[i] == -1) {
+				continue;
+			}
+			addTo(preds, predCount, next1[i], i);
+			if(next2[i] != next1[i]) {
+				addTo(preds, predCount, next2[i], i);
+			}
+		}
+		//file each trap state under the wildcard its list finishes with, found by
+		//following the chain of branching states from the one that points to the trap
+		for(int i = 0; i < state; i++) {
+			if(reachable[i] && ch[i] != branch && ch[i] != empty && next1[i] == -1) {
+				int w = preds[i][0];
+				while((ch[w] == branch || ch[w] == empty) && next2[w] >= 0 && next1[next2[w]] == -1) {
+					w = next1[w];
+				}
+				addTo(traps, trapCount, w, i);
+			}
+		}
+		//a counter's body reads the same way backwards, so the reversed counter keeps the
+		//same shape: its body starts from the forward body's end and finishes at the loop
+		//state, and the counter leaves to whatever led into the forward counter
+		for(int i = 0; i < state; i++) {
+			if(reachable[i] && ch[i] == loop) {
+				int c = next1[i];
+				int b = next1[c];
+				for(int k = 0; k < predCount[b]; k++) {
+					if(preds[b][k] == c) {
+						preds[b][k] = i;
+					}
+				}
+				for(int k = 0; k < predCount[c]; k++) {
+					if(preds[c][k] == i) {
+						preds[c][k] = preds[c][--predCount[c]];
+					}
+				}
+			}
+		}
+		
+		//each forward state becomes one reversed state, plus the branching states needed
+		//to fan out to more than two predecessors and to re-attach the ![ ]! traps
+		int size = 5 * (state + 1);
+		rch = new char[size];
+		rnext1 = new int[size];
+		rnext2 = new int[size];
+		rlow = new int[size];
+		rhigh = new int[size];
+		rsets = new String[size];
+		rnum = new int[state + 1];
+		rentry = new int[state + 1];
+		//state 0 of the reversed fsm is its start state
+		rstate = 1;
+		for(int i = 0; i < state; i++) {
+			rnum[i] = -1;
+			rentry[i] = -1;
+			if(reachable[i] && !(next1[i] == -1 && ch[i] != branch && ch[i] != empty)) {
+				rnum[i] = rstate;
+				rstate++;
+			}
+		}
+		//reaching the forward start state means the whole match has been read
+		setReverseState(rnum[0], finished, 0, 0);
+		//every other state matches its own symbol and then goes to its predecessors
+		for(int i = 1; i < state; i++) {
+			if(rnum[i] == -1) {
+				continue;
+			}
+			rch[rnum[i]] = ch[i];
+			rsets[rnum[i]] = sets[i];
+			if(ch[i] == count) {
+				rlow[rnum[i]] = low[i];
+				rhigh[rnum[i]] = high[i];
+				//the counter's body is entered through the state leading into the loop state
+				int l = preds[next1[i]][0];
+				rnext1[rnum[i]] = reverseEntry(preds[l][0]);
+				//and it leaves through a branching state to its predecessors
+				int b = rstate;
+				rstate++;
+				rch[b] = branch;
+				rnext2[rnum[i]] = b;
+				setReverseNext(b, preds[i], predCount[i]);
+			}
+			else if(ch[i] == loop) {
+				//the loop state still goes back to its counter
+				setReverseState(rnum[i], loop, rnum[next1[i]], rnum[next1[i]]);
+			}
+			else {
+				setReverseNext(rnum[i], preds[i], predCount[i]);
+			}
+		}
+		//the reversed fsm starts from the states that lead into the forward final state
+		rch[0] = branch;
+		setReverseNext(0, preds[state], predCount[state]);
+		
+		printFSM(rch, rnext1, rnext2, rlow, rhigh, rsets, rstate - 1);
+	}
+	
+	//adds the state s to the list at position i of lists, whose lengths are kept in counts,
+	//making that list twice as big first if it is full
+	private static void addTo(int[][] lists, int[] counts, int i, int s) {
+		if(counts[i] == lists[i].length) {
+			lists[i] = Arrays.copyOf(lists[i], 2 * counts[i]);
+		}
+		lists[i][counts[i]++] = s;
+	}
+	
+	//takes a state in the reversed fsm and sets it to go to the reversed versions of
+	//the given forward states, adding branching states if there are more than two
+	private void setReverseNext(int r, int[] list, int count) {
+		int k = 0;
+		while(count - k > 2) {
+			//make a branching state to hold the rest of the list
+			int b = rstate;
+			rstate++;
+			rch[b] = branch;
+			rnext1[r] = reverseEntry(list[k]);
+			rnext2[r] = b;
+			r = b;
+			k++;
+		}
+		rnext1[r] = reverseEntry(list[k]);
+		rnext2[r] = reverseEntry(list[count - 1]);
+	}
+	
+	//returns the reversed state to go to when the forward state s is next. For the
+	//wildcard of a ![ ]! list this is a chain of branching states to the list's traps,
+	//so the traps are checked against the same character as the wildcard, as in the forward fsm
+	private int reverseEntry(int s) {
+		if(rentry[s] != -1) {
+			return rentry[s];
+		}
+		if(trapCount[s] == 0) {
+			rentry[s] = rnum[s];
+			return rentry[s];
+		}
+		rentry[s] = rstate;
+		for(int i = 0; i < trapCount[s]; i++) {
+			//create a branching state pointing to the next two states
+			setReverseState(rstate, branch, rstate + 2, rstate + 1);
+			rstate++;
+			//create the trap state that goes nowhere
+			setReverseState(rstate, ch[traps[s][i]], -1, -1);
+			rsets[rstate] = sets[traps[s][i]];
+			rstate++;
+		}
+		//the last branching state goes on to the wildcard
+		rnext1[rstate - 2] = rnum[s];
+		return rentry[s];
+	}
+	
+	//takes a state number, a character and the next two states to store into the reversed fsm
+	private void setReverseState(int s, char c, int n1, int n2) {
+		rch[s] = c;
+		rnext1[s] = n1;
+		rnext2[s] = n2;
 	}
 	
 	//this method calls term and returns an integer r
-	private static int expression() {
+	private int expression() {
 		
 		int r, final1, start;
 		//call the alternation method
@@ -149,7 +544,7 @@ public class Compiler {
 		//System.err.println("f1: " + final1);
 		if(j < p.length) {
 			//if the current character is a literal or anything else in factor or is the start of a expression
-			if(isVocab(p[j]) || p[j] == '(' || p[j] == '\\' || p[j] == '[' || p[j] == '!' || p[j] == '.') {				
+			if(isVocab(p[j]) || p[j] == '(' || p[j] == '\\' || p[j] == '[' || p[j] == '!' || p[j] == '.' || p[j] == '^' || p[j] == '$') {				
 				//call expression
 				start = expression();
 				//update pointers
@@ -179,7 +574,7 @@ public class Compiler {
 	*/
 	
 	//this method calls term, it deals with alternation | and returns r
-	private static int alternation() {
+	private int alternation() {
 		int r, start1, final1, start2, final2;
 		
 		r = start1 = term();	
@@ -194,27 +589,13 @@ public class Compiler {
 			//if we just did * or + then we dont want to update all states pointing to r
 			//just the ones up to r-1
 			if(closure == true) {
-				for(int i = 0; i < r - 1; i++) {
-					if(next1[i] == r) {
-					next1[i] = state;
-					}
-					if(next2[i] == r) {
-						next2[i] = state;
-					}
-				}
+				redirect(r, state, r - 1);
 				closure = false;
 			}
 			else {
 				//update the pointer of the state before r to point to our new branching state we will create
-				for(int i = 0; i < state; i++) {
-					//if a state points to r (so the state before r) make it point to the current state
-					if(next1[i] == r) {
-						next1[i] = state;
-					}
-					if(next2[i] == r) {
-						next2[i] = state;
-					}
-				}
+				//if a state points to r (so the state before r) make it point to the current state
+				redirect(r, state, state);
 			}
 			
 			//move past the |
@@ -252,12 +633,13 @@ public class Compiler {
 	//this method calls factor, it deals with | alternation, * (closure) and two 
 	//other variations of closure symbolised by + and ?
 	//returns r
-	private static int term() {
+	private int term() {
 		
 		int r;
 		int t1;
 		int t2 = 0;
 		int f;
+		int begin = j;
 		
 		f = state - 1;
 		
@@ -279,15 +661,8 @@ public class Compiler {
 		//	next1[r-1] = state;
 		
 			//instead we will iterate through all states to find the state that points to r 
-			for(int i = 0; i < state; i++) {
-				//if it points to r make it point to the current state
-				if(next1[i] == r) {
-					next1[i] = state;
-				}
-				if(next2[i] == r) {
-					next2[i] = state;
-				}
-			}
+			//if it points to r make it point to the current state
+			redirect(r, state, state);
 			//update r
 			r = state;
 			//update t1
@@ -300,24 +675,11 @@ public class Compiler {
 		else if (j <p.length && p[j] == '?') {
 			//create a branching state. n1 = the start of what is repeated. n2 = the next state
 			setState(state, branch, r, state + 1);
-			//iterate through all states
-			for(int i = 0; i < state; i++) {				
-				//if any states point to the current state
-				// then make it point instead to the next state (to be created)
-				if(next1[i] == state) {
-					next1[i] = state + 1;
-				}
-				if(next2[i] == state) {
-					next2[i] = state + 1;
-				}				
-				//if it points to r make it point to the current state
-				if(next1[i] == r) {
-					next1[i] = state;
-				}
-				if(next2[i] == r) {
-					next2[i] = state;
-				}
-			}			
+			//if any states point to the current state
+			// then make it point instead to the next state (to be created)
+			redirect(state, state + 1, state);
+			//if it points to r make it point to the current state
+			redirect(r, state, state);
 			//update r
 			r = state;
 			//update t1
@@ -336,15 +698,194 @@ public class Compiler {
 			state++;
 			closure = true;
 		}
+		// {m}, {m,} and {m,n} - indicates the preceding regexp occurs at least m times and at most n times
+		else if (j < p.length && p[j] == '{') {
+			//the preceding regexp lies between begin and end in the pattern
+			int end = j;
+			int least;
+			int most;
+			//move past the {
+			j++;
+			least = number();
+			most = least;
+			if(j < p.length && p[j] == ',') {
+				j++;
+				//{m,} has no most
+				if(j < p.length && p[j] == '}') {
+					most = -1;
+				}
+				else {
+					most = number();
+				}
+			}
+			if(j >= p.length || p[j] != '}') {
+				error("No closing }");
+			}
+			//move past the }
+			j++;
+			if(most == 0) {
+				error("Repetition cannot be {0}");
+			}
+			if(most != -1 && most < least) {
+				error("Repetition {m,n} has n smaller than m");
+			}
+			r = repeat(r, begin, end, least, most);
+		}
 		
 		return r;
 	}
 	
+	//this method is called in { } to read a number and returns it
+	private int number() {
+		int n = 0;
+		int digits = 0;
+		while(j < p.length && p[j] >= '0' && p[j] <= '9') {
+			n = n * 10 + (p[j] - '0');
+			//checked as each digit is read, so n cannot overflow
+			if(n > maxRepeat) {
+				error("Number in { } is bigger than " + maxRepeat);
+			}
+			j++;
+			digits++;
+		}
+		if(digits == 0) {
+			error("Expected a number in { }");
+		}
+		return n;
+	}
+	
+	//checks if the regexp between begin and end in the pattern always matches exactly one
+	//symbol: a literal, an escaped literal, a wildcard or a [ ] list
+	private boolean singleSymbol(int begin, int end) {
+		if(end - begin == 1) {
+			return p[begin] != '^' && p[begin] != '$';
+		}
+		if(end - begin == 2 && p[begin] == '\\') {
+			return true;
+		}
+		return p[begin] == '[';
+	}
+	
+	//this method is called by term to deal with {m}, {m,} and {m,n}
+	//it takes: - the start state of the first copy of the regexp, already made by factor
+	// - where the regexp begins and ends in the pattern, so more copies can be made
+	// - the least and most times it can occur (most is -1 if there is no most)
+	//returns the start state of the whole repetition
+	private int repeat(int r, int begin, int end, int least, int most) {
+		int after = j;
+		//whether anything in the first copy points back to its start, as alternation() needs to know afterwards
+		boolean firstClosure = closure;
+		//the number of copies it would take to write the repetition out in full
+		int copies = (most == -1) ? Math.max(least, 1) : most;
+		
+		//a single symbol repeated so many times that its copies would not fit in the budget gets a
+		//counter instead, so the fsm stays the same size however big m and n are
+		if(copies > 1 && copies * (state - r) > budget && singleSymbol(begin, end)) {
+			//the body already points to the current state, which becomes the loop state going back to the counter
+			setState(state, loop, state + 1, state + 1);
+			state++;
+			//create the counter. n1 = the start of the body. n2 = the next state
+			setState(state, count, r, state + 1);
+			low[state] = least;
+			high[state] = most;
+			//anything that pointed to the body now points to the counter
+			redirect(r, state, state - 1);
+			r = state;
+			state++;
+			closure = true;
+			return r;
+		}
+		
+		//otherwise write the repetition out copy by copy
+		//{m,} is m copies with the last one repeated as if by + (or one copy with * for {0,})
+		if(most == -1) {
+			if(least == 0) {
+				//{0,} is the same as *, anything that pointed to the copy now points to the branching state
+				redirect(r, state, state);
+				//create a branching state. n1 = the start of the copy. n2 = the next state
+				setState(state, branch, r, state + 1);
+				r = state;
+			}
+			else {
+				int last = r;
+				for(int k = 1; k < least; k++) {
+					int before = state - 1;
+					last = copy(begin);
+					link(before, last);
+				}
+				//create a branching state as + does. n1 = the start of the last copy. n2 = the next state
+				setState(state, branch, last, state + 1);
+			}
+			state++;
+			closure = (least <= 1) || firstClosure;
+			j = after;
+			return r;
+		}
+		
+		//{m,n} is m copies followed by n - m optional ones, where each optional copy has a
+		//branching state in front of it that can skip to the end of the repetition
+		int[] skips = new int[most];
+		int skipCount = 0;
+		if(least == 0) {
+			//the first copy is optional, so put a branching state after it the way ? does
+			redirect(state, state + 1, state);
+			redirect(r, state, state);
+			setState(state, branch, r, -1);
+			skips[skipCount++] = state;
+			r = state;
+			state++;
+		}
+		for(int k = 1; k < most; k++) {
+			if(k >= least) {
+				//create a branching state. n1 = the start of this copy (set below). n2 = the end (set below)
+				int skip = state;
+				setState(state, branch, -1, -1);
+				skips[skipCount++] = state;
+				state++;
+				//copy() can make the arrays bigger, so it is called before next1 is looked up
+				int start = copy(begin);
+				next1[skip] = start;
+			}
+			else {
+				int before = state - 1;
+				link(before, copy(begin));
+			}
+		}
+		if(skipCount > 0) {
+			//make a branching state at the end for the skipping branches to go to
+			for(int i = 0; i < skipCount; i++) {
+				next2[skips[i]] = state;
+			}
+			setState(state, branch, state + 1, state + 1);
+			state++;
+		}
+		closure = (least == 0) ? false : firstClosure;
+		j = after;
+		return r;
+	}
+	
+	//makes one more copy of the regexp that begins at begin in the pattern, and returns its start
+	//the start is not always the first state made (a | puts its branching state after its first half)
+	private int copy(int begin) {
+		j = begin;
+		//a * or + in the copy before must not change how a | in this copy is linked up
+		closure = false;
+		return factor();
+	}
+	
+	//makes the end of one copy, the state before, go on to the start of the next, as expression() does
+	private void link(int before, int start) {
+		if(next1[before] == next2[before]) {
+			next1[before] = start;
+		}
+		next2[before] = start;
+	}
+	
 	//this method is called in [ ] to deal with the last two items in the list of literals
 	//it takes: - the literals stored in a StringBuilder
 	// - the index of the char in the StringBuilder
 	// - the final state in the fsm
-	public static void finalListItems(StringBuilder sb, int index, int finalState) {
+	private void finalListItems(StringBuilder sb, int index, int finalState) {
 		//set a branching state pointing to the next two states
 		setState(state, branch, state + 1, state + 2);
 		state++;
@@ -361,7 +902,7 @@ public class Compiler {
 	
 	// This method deals with literals, wildcard, escape characters, [ ], and ![ ]!
 	//it returns r
-	private static int factor() {
+	private int factor() {
 		
 		int r = state;
 		
@@ -370,7 +911,7 @@ public class Compiler {
 			//if the following character is not a [
 			if(((j+1) < p.length && p[j+1] != '[') || (j+1) >= p.length) {
 				//then we want to treat ! as a literal
-				setState(state, p[j], state+1, state+1);
+				setLiterals(state, fold(Character.toString(p[j])), state+1, state+1);
 				j++;
 				r = state;
 				state++;
@@ -382,8 +923,11 @@ public class Compiler {
 		if(j < p.length && p[j] == '\\') {
 			//get the next symbol
 			j++;
+			if(j >= p.length) {
+				error("Nothing to escape after \\");
+			}
 			//set it as if it were a literal
-			setState(state, p[j], state + 1, state + 1);
+			setLiterals(state, fold(Character.toString(p[j])), state + 1, state + 1);
 			j++;
 			r = state;
 			state++;
@@ -394,12 +938,25 @@ public class Compiler {
 				setState(state, wild, state + 1, state + 1);
 			}
 			else {
-				setState(state, p[j], state + 1, state + 1);
+				setLiterals(state, fold(Character.toString(p[j])), state + 1, state + 1);
 			}
 			j++;
 			r = state;
 			state++;			
 		}
+		//if the character is an anchor: ^ matches only at the start of the line and
+		//$ only at the end, neither of them uses up a character
+		else if(j < p.length && (p[j] == '^' || p[j] == '$')) {
+			if(p[j] == '^') {
+				setState(state, bol, state + 1, state + 1);
+			}
+			else {
+				setState(state, eol, state + 1, state + 1);
+			}
+			j++;
+			r = state;
+			state++;
+		}
 		else {
 			//if the character is the start of an expression
 			if(j < p.length && p[j] == '(') {
@@ -451,6 +1008,12 @@ public class Compiler {
 				
 				//we have seen a ] so now move past it
 				j++;
+				//if letters match in either case, the whole list becomes one set state
+				if(ignoreCase) {
+					setLiterals(state, fold(sb.toString()), state + 1, state + 1);
+					state++;
+					return r;
+				}
 				//get the length of our sb
 				int stringLength = sb.length();
 				//get the final state we will have to make for this [] thing
@@ -521,15 +1084,19 @@ public class Compiler {
 						//move past !
 						j++;
 						counter++;
-						//get the length of the sb
-						int stringLength = sb.length();
+						//if letters match in either case, the whole list becomes one set state to trap
+						if(ignoreCase) {
+							sb = new StringBuilder(fold(sb.toString()));
+						}
+						//get the length of the sb (one trap state if it is a set)
+						int stringLength = ignoreCase ? 1 : sb.length();
 						//for each literal in our sb
 						for(int i = 0; i < stringLength; i++) {
 							//create a branching state pointing to next two states
 							setState(state, branch, state + 2, state + 1);
 							state++;
 							//create a state that goes essentially nowhere
-							setState(state, sb.charAt(i), -1, -1);
+							setLiterals(state, ignoreCase ? sb.toString() : Character.toString(sb.charAt(i)), -1, -1);
 							state++;
 						}
 						//create a wildcard state as it takes everything
@@ -543,7 +1110,7 @@ public class Compiler {
 						//backtrack 
 						j = j - counter;
 						//add in the !
-						setState(state, p[j], state+1, state+1);
+						setLiterals(state, fold(Character.toString(p[j])), state+1, state+1);
 						j++;
 						r = state;
 						state++;	
@@ -564,19 +1131,111 @@ public class Compiler {
 	}
 	
 	public static void main(String[] args) {
-		if(args.length != 1) {
+		//options come before the regexp: -r asks for the reversed fsm as well,
+		//-u writes counted repetitions out copy by copy instead of using counters, -c gives every
+		//counted repetition of a single symbol a counter (both are for comparing the two),
+		//-i makes letters match in either case,
+		//and -b means the argument is a file of regexps to compile as a batch
+		boolean reverse = false;
+		int budget = unrollBudget;
+		boolean ignoreCase = false;
+		boolean batch = false;
+		int options = 0;
+		while(options < args.length - 1 && (args[options].equals("-r") || args[options].equals("-u") || args[options].equals("-c") || args[options].equals("-i") || args[options].equals("-b"))) {
+			if(args[options].equals("-r")) {
+				reverse = true;
+			}
+			else if(args[options].equals("-u")) {
+				budget = Integer.MAX_VALUE;
+			}
+			else if(args[options].equals("-c")) {
+				budget = 0;
+			}
+			else if(args[options].equals("-i")) {
+				ignoreCase = true;
+			}
+			else {
+				batch = true;
+			}
+			options++;
+		}
+		if(args.length - options != 1) {
 			//Check that we have received 1 argument
-			System.err.println("Usage: java Compiler <regexp>");
+			System.err.println("Usage: java Compiler [-r] [-u | -c] [-i] <regexp>");
+			System.err.println("       java Compiler [-r] [-u | -c] [-i] -b <file of regexps>");
 			return;
 		}
 		
-		//turn our input string into a char array
-		String s = args[0];
-		p = s.toCharArray();
-		//initialize the index
-		j = 0;
+		if(batch) {
+			try {
+				batch(args[options], reverse, budget, ignoreCase);
+			}
+			catch(IOException | InterruptedException ex) {
+				System.err.println("Error: " + ex.getMessage());
+			}
+			return;
+		}
 		
-		//call the parse() method
-		parse();		
+		Compiler compiler = new Compiler(reverse, budget, ignoreCase);
+		try {
+			String fsm = compiler.compile(args[options]);
+			//print out the fsm pretty to standard error and to standard output
+			compiler.printFSMPretty();
+			System.out.print(fsm);
+		}
+		catch(IllegalArgumentException ex) {
+			System.err.println("Error: " + ex.getMessage());
+		}
+	}
+	
+	//compiles every regexp in the file (one per line, blank lines are skipped) on a pool of
+	//threads, and prints one bundle to standard output. In the bundle each fsm comes after a
+	//line "PATTERN n regexp" where n is the regexp's line in the file, in the same order as the
+	//file. A regexp that cannot be compiled gets a line "ERROR n message" instead, which is also
+	//printed to standard error, and does not stop the rest
+	private static void batch(String fileName, boolean reverse, int budget, boolean ignoreCase) throws IOException, InterruptedException {
+		//read in every regexp with its line number
+		List<String> patterns = new ArrayList<String>();
+		List<Integer> lineNumbers = new ArrayList<Integer>();
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		String line;
+		int lineNumber = 0;
+		while((line = reader.readLine()) != null) {
+			lineNumber++;
+			if(!line.isEmpty()) {
+				patterns.add(line);
+				lineNumbers.add(lineNumber);
+			}
+		}
+		reader.close();
+		
+		//compile them all at once, each with a Compiler of its own as a Compiler holds the fsm it is making
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		List<Future<String>> fsms = new ArrayList<Future<String>>();
+		for(String pattern : patterns) {
+			fsms.add(pool.submit(() -> new Compiler(reverse, budget, ignoreCase).compile(pattern)));
+		}
+		pool.shutdown();
+		
+		//write them out in order as each one finishes
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+		int failed = 0;
+		for(int i = 0; i < fsms.size(); i++) {
+			try {
+				String fsm = fsms.get(i).get();
+				writer.print("PATTERN " + lineNumbers.get(i) + " " + patterns.get(i) + "\n");
+				writer.print(fsm);
+			}
+			catch(ExecutionException ex) {
+				//an invalid regexp gives an IllegalArgumentException, anything else it gives is reported the same way
+				Throwable cause = ex.getCause();
+				String message = (cause instanceof IllegalArgumentException) ? cause.getMessage() : cause.toString();
+				writer.print("ERROR " + lineNumbers.get(i) + " " + message + "\n");
+				System.err.println("Error: line " + lineNumbers.get(i) + ": " + message);
+				failed++;
+			}
+		}
+		writer.flush();
+		System.err.println("Compiled " + (fsms.size() - failed) + " of " + fsms.size() + " patterns");
 	}
 }
@@ -0,0 +1,195 @@
+import java.util.Arrays;
+
+// Keeps the counts reached by every counter (COUNT state) in an FSM while a match is being tried
+// Every count a counter has reached is kept at once as a bitset, bit c meaning a count of c, so adding one to all of them is one shift
+// A counter whose counts all fit in one long (a bound below 64, as nearly all are) keeps them in a long of its own rather than an array
+class Counters {
+	// Returned by enter() and repeat() to say the counter's body and/or exit should be added to the possible current states
+	public static final int BODY = 1;
+	public static final int EXIT = 2;
+
+	// The least and most number of repeats of each counter
+	private int[] low_;
+	private int[] high_;
+	// Whether each counter's counts need more than one long
+	private boolean[] wide_;
+	// The counts of each counter that fits in one long at the current character and at the character before
+	private long[] currWord_;
+	private long[] prevWord_;
+	// The counts of each wider counter at the current character and at the character before (null for all other states)
+	private long[][] curr_;
+	private long[][] prev_;
+	// The character each counter's counts, body and exit were last updated for
+	private long[] updated_;
+	private long[] bodyAdded_;
+	private long[] exitAdded_;
+	// Goes up by one for every character read, and jumps on for every new match attempt, so counts never need clearing
+	private long clock_;
+
+	// Public constructor that makes room for the counts of every counter in the FSM
+	public Counters(FSM fsm) {
+		low_ = new int[fsm.size()];
+		high_ = new int[fsm.size()];
+		wide_ = new boolean[fsm.size()];
+		currWord_ = new long[fsm.size()];
+		prevWord_ = new long[fsm.size()];
+		curr_ = new long[fsm.size()][];
+		prev_ = new long[fsm.size()][];
+		updated_ = new long[fsm.size()];
+		bodyAdded_ = new long[fsm.size()];
+		exitAdded_ = new long[fsm.size()];
+		for (int i = 0; i < fsm.size(); i++) {
+			if (fsm.getData(i).equals("COUNT")) {
+				low_[i] = fsm.getLow(i);
+				high_[i] = fsm.getHigh(i);
+				// Counts go up to the most, or up to the least if there is no most since any count past that is the same
+				int limit = (high_[i] == -1) ? low_[i] : high_[i];
+				wide_[i] = limit >= 64;
+				if (wide_[i]) {
+					curr_[i] = new long[limit / 64 + 1];
+					prev_[i] = new long[limit / 64 + 1];
+				}
+			}
+			updated_[i] = bodyAdded_[i] = exitAdded_[i] = -1;
+		}
+		clock_ = 0;
+	}
+
+	// Called at the start of every match attempt
+	public void restart() {
+		clock_ += 2;
+	}
+
+	// Called every time a character is read
+	public void step() {
+		clock_++;
+	}
+
+	// Called when the counter is entered from before it, starting a count of 0
+	public int enter(int state) {
+		update(state);
+		if (wide_[state]) {
+			curr_[state][0] |= 1L;
+		}
+		else {
+			currWord_[state] |= 1L;
+		}
+		return moves(state);
+	}
+
+	// Called when the counter's body has matched a character, adding one to every count that went through the body
+	public int repeat(int state) {
+		update(state);
+		if (!wide_[state]) {
+			long prev = prevWord_[state];
+			long curr = currWord_[state] | (prev << 1);
+			int high = high_[state];
+			if (high == -1) {
+				// With no most, a count that has reached the least stays there
+				curr |= prev & (1L << low_[state]);
+				high = low_[state];
+			}
+			// Drop anything shifted past the last count
+			currWord_[state] = curr & (-1L >>> (63 - high));
+			return moves(state);
+		}
+		long[] prev = prev_[state];
+		long[] curr = curr_[state];
+		long carry = 0;
+		for (int i = 0; i < prev.length; i++) {
+			curr[i] |= (prev[i] << 1) | carry;
+			carry = prev[i] >>> 63;
+		}
+		int high = high_[state];
+		int low = low_[state];
+		if (high == -1) {
+			// With no most, a count that has reached the least stays there
+			if ((prev[low / 64] & (1L << (low % 64))) != 0) {
+				curr[low / 64] |= 1L << (low % 64);
+			}
+			high = low;
+		}
+		// Drop anything shifted past the last count
+		curr[curr.length - 1] &= -1L >>> (63 - high % 64);
+		return moves(state);
+	}
+
+	// Makes sure the counts of the counter are for the current character, moving them to prev_ if they were for the character before
+	private void update(int state) {
+		if (updated_[state] == clock_) {
+			return;
+		}
+		if (!wide_[state]) {
+			prevWord_[state] = (updated_[state] == clock_ - 1) ? currWord_[state] : 0;
+			currWord_[state] = 0;
+			updated_[state] = clock_;
+			return;
+		}
+		long[] old = prev_[state];
+		if (updated_[state] == clock_ - 1) {
+			prev_[state] = curr_[state];
+			curr_[state] = old;
+		}
+		else {
+			Arrays.fill(old, 0);
+		}
+		Arrays.fill(curr_[state], 0);
+		updated_[state] = clock_;
+	}
+
+	// Works out whether the counter can now go into its body (a count is below the most) or leave (a count is at least the least)
+	// Each is only returned the first time for each character, as adding it again would do nothing
+	private int moves(int state) {
+		int low = low_[state];
+		int high = high_[state];
+		int moves = 0;
+		boolean body;
+		boolean exit;
+		if (!wide_[state]) {
+			long curr = currWord_[state];
+			body = high == -1 || (curr & ((1L << high) - 1)) != 0;
+			exit = (curr & (-1L << low)) != 0;
+		}
+		else {
+			body = high == -1 || below(curr_[state], high);
+			exit = atLeast(curr_[state], low);
+		}
+		if (bodyAdded_[state] != clock_ && body) {
+			bodyAdded_[state] = clock_;
+			moves |= BODY;
+		}
+		if (exitAdded_[state] != clock_ && exit) {
+			exitAdded_[state] = clock_;
+			moves |= EXIT;
+		}
+		return moves;
+	}
+
+	// Returns true if any count below n is set
+	private static boolean below(long[] counts, int n) {
+		for (int i = 0; i < counts.length && i * 64 < n; i++) {
+			long word = counts[i];
+			if (n - i * 64 < 64) {
+				word &= (1L << (n - i * 64)) - 1;
+			}
+			if (word != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Returns true if any count of n or more is set
+	private static boolean atLeast(long[] counts, int n) {
+		for (int i = n / 64; i < counts.length; i++) {
+			long word = counts[i];
+			if (i == n / 64) {
+				word &= -1L << (n % 64);
+			}
+			if (word != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
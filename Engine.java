@@ -0,0 +1,6 @@
+// Something that can run an FSM over a line
+interface Engine {
+	// Runs the FSM over the line starting at position mark, moving through the line in the direction of step (1 forwards, -1 backwards)
+	// Returns the position the match reached when the FSM finished (where it started, when reading backwards), or -1 if there was no match
+	int match(String line, int mark, int step);
+}
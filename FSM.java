@@ -0,0 +1,245 @@
+// Authors: Elizabeth Macken and Sacha Raman
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+class FSM {
+	// The kinds of state, worked out from the data of each state as it is added
+	public static final int LITERAL = 0;
+	public static final int WILD = 1;
+	public static final int BRANCH = 2;
+	public static final int FINISHED = 3;
+	public static final int BOL = 4;
+	public static final int EOL = 5;
+	public static final int COUNT = 6;
+	public static final int LOOP = 7;
+	public static final int SET = 8;
+
+	// A list of states (in order)
+	private ArrayList<Node> states_;
+	// The epsilon closure of every state, worked out the first time one is asked for (null until then)
+	private int[][] closures_;
+
+	// Public constructor that initialises the list
+	public FSM() {
+		states_ = new ArrayList<Node>();
+	}
+
+	// Public method that adds a new state, with the string value for that state and the two next states
+	public void add(String data, int nextState1, int nextState2) {
+		// Checking if the data equals "SPACE", indicating a " " is the actual data value
+		if (data.equals("SPACE")) {
+			// If so, changing it to equal " "
+			data = " ";
+		}
+		// Then creating and adding a new node with the data value, and 2 next states
+		Node toAdd = new Node(data, nextState1, nextState2);
+		// Checking if the data is a counter, written COUNT{m,n} or COUNT{m,} if it has no most
+		if (data.startsWith("COUNT{")) {
+			// If so, storing the least and most number of repeats separately from the data
+			String[] bounds = data.substring(6, data.length() - 1).split(",", -1);
+			toAdd = new Node("COUNT", nextState1, nextState2);
+			toAdd.low_ = Integer.parseInt(bounds[0]);
+			toAdd.high_ = bounds[1].isEmpty() ? -1 : Integer.parseInt(bounds[1]);
+		}
+		// Checking if the data is a set of literals, written SET{c,c,...} with each literal as a number
+		if (data.startsWith("SET{")) {
+			// If so, storing the literals as a bitset (bit c meaning literal c), so any character is checked with one lookup
+			String[] literals = data.substring(4, data.length() - 1).split(",");
+			toAdd = new Node("SET", nextState1, nextState2);
+			int most = 0;
+			for (String literal : literals) {
+				most = Math.max(most, Integer.parseInt(literal));
+			}
+			toAdd.set_ = new long[(most >> 6) + 1];
+			for (String literal : literals) {
+				int c = Integer.parseInt(literal);
+				toAdd.set_[c >> 6] |= 1L << c;
+			}
+		}
+		states_.add(toAdd);
+		closures_ = null;
+	}
+
+	// Returns the kind of the state at the position given in the FSM
+	public int getKind(int index) {
+		return states_.get(index).kind_;
+	}
+
+	// Returns the symbol a LITERAL state at the position given in the FSM matches
+	public char getSymbol(int index) {
+		String data = states_.get(index).getData();
+		return (states_.get(index).kind_ == LITERAL) ? data.charAt(0) : 0;
+	}
+
+	// Returns the epsilon closure of the state at the position given in the FSM: every state other than a BRANCH state that can be
+	// reached from it by going through BRANCH states alone (the state itself if it is not a BRANCH state)
+	// The states are in the order they would be tried in when following the branches one at a time, second next state first
+	public int[] getClosure(int index) {
+		if (closures_ == null) {
+			closures_ = new int[states_.size()][];
+			// The state each state was last seen from, plus one, so nothing needs clearing between states
+			int[] seen = new int[states_.size()];
+			int[] found = new int[states_.size()];
+			int[] stack = new int[2 * states_.size() + 1];
+			for (int i = 0; i < states_.size(); i++) {
+				int count = closure(i, seen, found, stack);
+				closures_[i] = Arrays.copyOf(found, count);
+			}
+		}
+		return closures_[index];
+	}
+
+	// Follows BRANCH states from the state given, adding every other state reached to found, and returns how many were found
+	// Uses a stack of its own rather than recursion, as a long [ ] list is a chain of thousands of BRANCH states
+	private int closure(int state, int[] seen, int[] found, int[] stack) {
+		int count = 0;
+		int top = 0;
+		stack[top++] = state;
+		while (top > 0) {
+			int s = stack[--top];
+			if (seen[s] == state + 1) {
+				continue;
+			}
+			seen[s] = state + 1;
+			Node node = states_.get(s);
+			if (node.kind_ != BRANCH) {
+				found[count++] = s;
+			}
+			else {
+				// The second next state goes on top, so it and everything reached from it come first
+				stack[top++] = node.nextStates_[0];
+				stack[top++] = node.nextStates_[1];
+			}
+		}
+		return count;
+	}
+
+	// Returns the number of states in the FSM
+	public int size() {
+		return states_.size();
+	}
+
+	// Returns the literals a SET state at the position given in the FSM matches, as a bitset (null for other states)
+	public long[] getSet(int index) {
+		return states_.get(index).set_;
+	}
+
+	// Returns true if the character is in the set (as returned by getSet)
+	public static boolean inSet(long[] set, char c) {
+		return (c >> 6) < set.length && (set[c >> 6] & (1L << c)) != 0;
+	}
+
+	// Returns the least number of times the body of the counter at the position given must repeat
+	public int getLow(int index) {
+		return states_.get(index).low_;
+	}
+
+	// Returns the most number of times the body of the counter at the position given can repeat (-1 if there is no most)
+	public int getHigh(int index) {
+		return states_.get(index).high_;
+	}
+
+	// Returns the next states for the state at the position given in the FSM (not recursive)
+	public int[] getNextStates(int index) {
+		return states_.get(index).getNextStates();
+	}
+
+	// Returns the data value for the states at the position given in the FSM (not recursive)
+	public String getData(int index) {
+		return states_.get(index).getData();
+	}
+
+	// Returns true if the FSM has any trap states (the states of a ![ ]! list, which point to -1)
+	public boolean hasTraps() {
+		for (Node node : states_) {
+			if (!node.getData().equals("BRANCH") && node.getNextStates()[0] == -1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Returns true if every match must first pass the given anchor ("BOL" or "EOL"), found by following the branches out of the start state
+	public boolean anchored(String anchor) {
+		boolean[] seen = new boolean[states_.size()];
+		LinkedList<Integer> toVisit = new LinkedList<Integer>();
+		toVisit.add(0);
+		while (toVisit.size() > 0) {
+			int state = toVisit.remove();
+			if (state < 0 || seen[state]) {
+				continue;
+			}
+			seen[state] = true;
+			String data = getData(state);
+			if (data.equals("BRANCH")) {
+				toVisit.add(getNextStates(state)[0]);
+				toVisit.add(getNextStates(state)[1]);
+			}
+			// Any other state that could be reached first means a match does not have to pass the anchor
+			else if (!data.equals(anchor)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Private inner class of a Node, which stores a max of 2 next states, and a string of data
+	private class Node {
+		private String data_;
+		private int[] nextStates_;
+		// The repeat bounds, only used by counters
+		private int low_;
+		private int high_;
+		// The literals matched, only used by sets
+		private long[] set_;
+		// The kind of state
+		private int kind_;
+
+		// Constructor, takes a string value as data, and 2 integer values for next state numbers
+		public Node(String data, int state1, int state2) {
+			nextStates_ = new int[2];
+			nextStates_[0] = state1;
+			nextStates_[1] = state2;
+			data_ = data;
+			if (data.equals("WILD")) {
+				kind_ = WILD;
+			}
+			else if (data.equals("BRANCH")) {
+				kind_ = BRANCH;
+			}
+			else if (data.equals("FINISHED")) {
+				kind_ = FINISHED;
+			}
+			else if (data.equals("BOL")) {
+				kind_ = BOL;
+			}
+			else if (data.equals("EOL")) {
+				kind_ = EOL;
+			}
+			else if (data.equals("COUNT")) {
+				kind_ = COUNT;
+			}
+			else if (data.equals("LOOP")) {
+				kind_ = LOOP;
+			}
+			else if (data.equals("SET")) {
+				kind_ = SET;
+			}
+			else {
+				kind_ = LITERAL;
+			}
+		}
+
+		// Returns the array of next states of this node
+		public int[] getNextStates() {
+			return nextStates_;
+		}
+
+		// Returns the data value of this node
+		public String getData() {
+			return data_;
+		}
+	}
+}
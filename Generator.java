@@ -0,0 +1,512 @@
+// Turns an FSM into a class of its own at runtime, so the JIT can compile each pattern into specialised machine code
+//
+// The generated class keeps the states it could be in as the bits of a long, so it can only be made for FSMs of at most 64 states
+// Every state's epsilon closure becomes a constant mask, and the code for each character is a switch on the character leading to
+// straight-line code for just the states that read that character. FINISHED, the anchors and WILD are checked with constant masks too
+// Counters and the trap states of ![ ]! lists are left to the interpreter, since they depend on counts and on the order states are tried in
+//
+// The class file is written by hand (there is no class file writer in the JDK) with class file version 49, which the JVM verifies
+// without needing stack map frames, and is defined as a hidden class next to this one
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class Generator {
+	// The most states an FSM can have for a class to be generated for it (one bit of a long each)
+	public static final int MAX_STATES = 64;
+
+	// Local variables of the generated match(String line, int mark, int step) method
+	private static final int LINE = 1;
+	private static final int MARK = 2;
+	private static final int STEP = 3;
+	private static final int LENGTH = 4;
+	private static final int POSITION = 5;
+	private static final int CHAR = 6;
+	private static final int CURR = 7;
+	private static final int NEXT = 9;
+	private static final int OLD = 11;
+	private static final int LOCALS = 13;
+
+	// The opcodes used
+	private static final int ICONST_M1 = 0x02;
+	private static final int LCONST_0 = 0x09;
+	private static final int LDC2_W = 0x14;
+	private static final int ILOAD = 0x15;
+	private static final int LLOAD = 0x16;
+	private static final int ALOAD = 0x19;
+	private static final int ISTORE = 0x36;
+	private static final int LSTORE = 0x37;
+	private static final int IADD = 0x60;
+	private static final int LAND = 0x7f;
+	private static final int LOR = 0x81;
+	private static final int IINC = 0x84;
+	private static final int LCMP = 0x94;
+	private static final int IFEQ = 0x99;
+	private static final int IFNE = 0x9a;
+	private static final int IFLT = 0x9b;
+	private static final int IFGT = 0x9d;
+	private static final int IF_ICMPNE = 0xa0;
+	private static final int IF_ICMPGE = 0xa2;
+	private static final int GOTO = 0xa7;
+	private static final int LOOKUPSWITCH = 0xab;
+	private static final int IRETURN = 0xac;
+	private static final int RETURN = 0xb1;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+
+	// The FSM being turned into a class
+	private FSM fsm_;
+	// The constant pool of the class being written, and where each constant already in it is
+	private ByteArrayOutputStream pool_;
+	private Map<String, Integer> poolIndex_;
+	private int poolCount_;
+	// The code of the method being written, where each label is in it (-1 until it is placed), and the jumps still to be filled in
+	private ByteArrayOutputStream code_;
+	private List<Integer> labels_;
+	private List<int[]> jumps_;
+
+	private Generator(FSM fsm) {
+		fsm_ = fsm;
+		pool_ = new ByteArrayOutputStream();
+		poolIndex_ = new HashMap<String, Integer>();
+		poolCount_ = 1;
+	}
+
+	// Returns an engine running the FSM in a class generated for it
+	// Throws IllegalArgumentException if the FSM cannot be turned into a class (it has more than MAX_STATES states, counters or
+	// ![ ]! traps), and IllegalStateException if writing, loading or creating the class fails, saying why in both cases
+	public static Engine generate(FSM fsm) {
+		if (fsm.size() > MAX_STATES) {
+			throw new IllegalArgumentException("it has " + fsm.size() + " states, more than the " + MAX_STATES + " a class can keep");
+		}
+		for (int i = 0; i < fsm.size(); i++) {
+			int kind = fsm.getKind(i);
+			if (kind == FSM.COUNT || kind == FSM.LOOP) {
+				throw new IllegalArgumentException("state " + i + " belongs to a counter");
+			}
+			if ((kind == FSM.LITERAL || kind == FSM.SET) && fsm.getNextStates(i)[0] == -1) {
+				throw new IllegalArgumentException("state " + i + " is the trap of a ![ ]! list");
+			}
+		}
+		try {
+			byte[] bytes = new Generator(fsm).classFile();
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+			return (Engine) lookup.lookupClass().getConstructor().newInstance();
+		}
+		catch (Exception | LinkageError ex) {
+			// A class that the JVM does not accept (a LinkageError such as VerifyError) is a bug here, not in the FSM
+			throw new IllegalStateException("generating its class failed: " + ex, ex);
+		}
+	}
+
+	// Writes the class file: a final class implementing Engine with a constructor and the match method
+	private byte[] classFile() throws IOException {
+		int thisClass = classConstant("GeneratedFSM");
+		int superClass = classConstant("java/lang/Object");
+		int engine = classConstant("Engine");
+		byte[] constructor = method("<init>", "()V", constructorCode(), 1, 1);
+		byte[] match = method("match", "(Ljava/lang/String;II)I", matchCode(), 6, LOCALS);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(49);
+		out.writeShort(poolCount_);
+		pool_.writeTo(out);
+		// public final super
+		out.writeShort(0x0031);
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);
+		out.writeShort(engine);
+		// no fields, two methods, no attributes
+		out.writeShort(0);
+		out.writeShort(2);
+		out.write(constructor);
+		out.write(match);
+		out.writeShort(0);
+		return bytes.toByteArray();
+	}
+
+	// Writes a public method with the given code
+	private byte[] method(String name, String descriptor, byte[] code, int maxStack, int maxLocals) throws IOException {
+		if (code.length > 32767) {
+			throw new IOException("Generated code is too big for its jumps");
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeShort(0x0001);
+		out.writeShort(utf8Constant(name));
+		out.writeShort(utf8Constant(descriptor));
+		out.writeShort(1);
+		out.writeShort(utf8Constant("Code"));
+		out.writeInt(12 + code.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		// no exception table, no attributes
+		out.writeShort(0);
+		out.writeShort(0);
+		return bytes.toByteArray();
+	}
+
+	// The constructor just calls Object's
+	private byte[] constructorCode() throws IOException {
+		startCode();
+		op(ALOAD, 0);
+		op(INVOKESPECIAL);
+		u2(methodConstant("java/lang/Object", "<init>", "()V"));
+		op(RETURN);
+		return endCode();
+	}
+
+	// The match method, as described in Engine. In outline:
+	//	length = line.length(); position = mark; curr = closure(0)
+	//	loop:	if curr is empty, return -1
+	//		add the closures of anchors that hold at position to curr, until there are no more
+	//		if curr holds FINISHED, return position
+	//		if there is no character to read at position, return -1
+	//		c = the character; next = the closures of the states in curr that read c, and of the WILD states in curr
+	//		curr = next; position += step
+	private byte[] matchCode() throws IOException {
+		startCode();
+		int loop = newLabel();
+		int noMatch = newLabel();
+
+		// sort the states by kind, and the literals and sets by the characters they read
+		TreeMap<Character, List<Integer>> literals = new TreeMap<Character, List<Integer>>();
+		List<Integer> wilds = new ArrayList<Integer>();
+		List<Integer> anchors = new ArrayList<Integer>();
+		long finished = 0;
+		for (int i = 0; i < fsm_.size(); i++) {
+			switch (fsm_.getKind(i)) {
+				case FSM.LITERAL:
+					literals.computeIfAbsent(fsm_.getSymbol(i), k -> new ArrayList<Integer>()).add(i);
+					break;
+				case FSM.SET:
+					// a set reads every character in it, so it goes under each of them
+					long[] set = fsm_.getSet(i);
+					for (int c = 0; c < set.length * 64; c++) {
+						if (FSM.inSet(set, (char) c)) {
+							literals.computeIfAbsent((char) c, k -> new ArrayList<Integer>()).add(i);
+						}
+					}
+					break;
+				case FSM.WILD:
+					wilds.add(i);
+					break;
+				case FSM.BOL:
+				case FSM.EOL:
+					anchors.add(i);
+					break;
+				case FSM.FINISHED:
+					finished |= 1L << i;
+					break;
+			}
+		}
+
+		// length = line.length(); position = mark; curr = closure(0)
+		op(ALOAD, LINE);
+		op(INVOKEVIRTUAL);
+		u2(methodConstant("java/lang/String", "length", "()I"));
+		op(ISTORE, LENGTH);
+		op(ILOAD, MARK);
+		op(ISTORE, POSITION);
+		pushLong(closure(0));
+		op(LSTORE, CURR);
+
+		// if curr is empty, return -1
+		place(loop);
+		op(LLOAD, CURR);
+		op(LCONST_0);
+		op(LCMP);
+		jump(IFEQ, noMatch);
+
+		// follow the anchors that hold, going round again if that reached any more states
+		if (!anchors.isEmpty()) {
+			int again = newLabel();
+			place(again);
+			op(LLOAD, CURR);
+			op(LSTORE, OLD);
+			for (int s : anchors) {
+				int skip = newLabel();
+				testBit(CURR, s, skip);
+				op(ILOAD, POSITION);
+				if (fsm_.getKind(s) == FSM.BOL) {
+					jump(IFNE, skip);
+				}
+				else {
+					op(ILOAD, LENGTH);
+					jump(IF_ICMPNE, skip);
+				}
+				orInto(CURR, closure(fsm_.getNextStates(s)[0]));
+				place(skip);
+			}
+			op(LLOAD, CURR);
+			op(LLOAD, OLD);
+			op(LCMP);
+			jump(IFNE, again);
+		}
+
+		// if curr holds FINISHED, return position
+		if (finished != 0) {
+			int notFinished = newLabel();
+			op(LLOAD, CURR);
+			pushLong(finished);
+			op(LAND);
+			op(LCONST_0);
+			op(LCMP);
+			jump(IFEQ, notFinished);
+			op(ILOAD, POSITION);
+			op(IRETURN);
+			place(notFinished);
+		}
+
+		// the character is at position going forwards, or just before it going backwards
+		int forwards = newLabel();
+		op(ILOAD, POSITION);
+		op(ISTORE, CHAR);
+		op(ILOAD, STEP);
+		jump(IFGT, forwards);
+		op(IINC, CHAR);
+		u1(-1);
+		place(forwards);
+		// if there is no character to read there, return -1
+		op(ILOAD, CHAR);
+		jump(IFLT, noMatch);
+		op(ILOAD, CHAR);
+		op(ILOAD, LENGTH);
+		jump(IF_ICMPGE, noMatch);
+		// c = line.charAt(that)
+		op(ALOAD, LINE);
+		op(ILOAD, CHAR);
+		op(INVOKEVIRTUAL);
+		u2(methodConstant("java/lang/String", "charAt", "(I)C"));
+		op(ISTORE, CHAR);
+		// next = nothing
+		op(LCONST_0);
+		op(LSTORE, NEXT);
+
+		// switch on c to the code for the states that read it
+		if (!literals.isEmpty()) {
+			int afterSwitch = newLabel();
+			op(ILOAD, CHAR);
+			int switchAt = code_.size();
+			op(LOOKUPSWITCH);
+			while (code_.size() % 4 != 0) {
+				u1(0);
+			}
+			switchJump(switchAt, afterSwitch);
+			u4(literals.size());
+			List<Integer> cases = new ArrayList<Integer>();
+			for (char c : literals.keySet()) {
+				int label = newLabel();
+				cases.add(label);
+				u4(c);
+				switchJump(switchAt, label);
+			}
+			int k = 0;
+			for (List<Integer> states : literals.values()) {
+				place(cases.get(k++));
+				for (int s : states) {
+					follow(s);
+				}
+				jump(GOTO, afterSwitch);
+			}
+			place(afterSwitch);
+		}
+		for (int s : wilds) {
+			follow(s);
+		}
+
+		// curr = next; position += step
+		op(LLOAD, NEXT);
+		op(LSTORE, CURR);
+		op(ILOAD, POSITION);
+		op(ILOAD, STEP);
+		op(IADD);
+		op(ISTORE, POSITION);
+		jump(GOTO, loop);
+
+		place(noMatch);
+		op(ICONST_M1);
+		op(IRETURN);
+		return endCode();
+	}
+
+	// Writes: if curr holds state s, next |= the closures of its next states
+	private void follow(int s) throws IOException {
+		int skip = newLabel();
+		testBit(CURR, s, skip);
+		int[] nextStates = fsm_.getNextStates(s);
+		orInto(NEXT, closure(nextStates[0]) | closure(nextStates[1]));
+		place(skip);
+	}
+
+	// Writes: if the state's bit is not set in the long in local, go to skip
+	private void testBit(int local, int state, int skip) throws IOException {
+		op(LLOAD, local);
+		pushLong(1L << state);
+		op(LAND);
+		op(LCONST_0);
+		op(LCMP);
+		jump(IFEQ, skip);
+	}
+
+	// Writes: local |= mask
+	private void orInto(int local, long mask) throws IOException {
+		op(LLOAD, local);
+		pushLong(mask);
+		op(LOR);
+		op(LSTORE, local);
+	}
+
+	// Returns the epsilon closure of the state as a mask of states
+	private long closure(int state) {
+		long mask = 0;
+		if (state < 0) {
+			return mask;
+		}
+		for (int s : fsm_.getClosure(state)) {
+			mask |= 1L << s;
+		}
+		return mask;
+	}
+
+	// Code writing: starting and finishing a method's code, opcodes and their operands, labels and jumps to them
+
+	private void startCode() {
+		code_ = new ByteArrayOutputStream();
+		labels_ = new ArrayList<Integer>();
+		jumps_ = new ArrayList<int[]>();
+	}
+
+	// Fills in every jump now that all the labels are placed, and returns the code
+	private byte[] endCode() {
+		byte[] code = code_.toByteArray();
+		for (int[] jump : jumps_) {
+			// {where the offset goes, where the instruction it is relative to starts, the label, how many bytes}
+			int offset = labels_.get(jump[2]) - jump[1];
+			for (int i = 0; i < jump[3]; i++) {
+				code[jump[0] + i] = (byte) (offset >> (8 * (jump[3] - 1 - i)));
+			}
+		}
+		return code;
+	}
+
+	private void op(int opcode) {
+		u1(opcode);
+	}
+
+	private void op(int opcode, int local) {
+		u1(opcode);
+		u1(local);
+	}
+
+	private void pushLong(long value) throws IOException {
+		op(LDC2_W);
+		u2(longConstant(value));
+	}
+
+	private int newLabel() {
+		labels_.add(-1);
+		return labels_.size() - 1;
+	}
+
+	private void place(int label) {
+		labels_.set(label, code_.size());
+	}
+
+	private void jump(int opcode, int label) {
+		int at = code_.size();
+		op(opcode);
+		jumps_.add(new int[] {code_.size(), at, label, 2});
+		u2(0);
+	}
+
+	private void switchJump(int switchAt, int label) {
+		jumps_.add(new int[] {code_.size(), switchAt, label, 4});
+		u4(0);
+	}
+
+	private void u1(int value) {
+		code_.write(value);
+	}
+
+	private void u2(int value) {
+		code_.write(value >> 8);
+		code_.write(value);
+	}
+
+	private void u4(int value) {
+		u2(value >> 16);
+		u2(value);
+	}
+
+	// Constant pool writing: each constant is added once and its index returned
+
+	private int utf8Constant(String value) throws IOException {
+		String key = "Utf8 " + value;
+		if (!poolIndex_.containsKey(key)) {
+			DataOutputStream out = new DataOutputStream(pool_);
+			out.writeByte(1);
+			out.writeUTF(value);
+			poolIndex_.put(key, poolCount_++);
+		}
+		return poolIndex_.get(key);
+	}
+
+	private int classConstant(String name) throws IOException {
+		String key = "Class " + name;
+		if (!poolIndex_.containsKey(key)) {
+			int nameIndex = utf8Constant(name);
+			DataOutputStream out = new DataOutputStream(pool_);
+			out.writeByte(7);
+			out.writeShort(nameIndex);
+			poolIndex_.put(key, poolCount_++);
+		}
+		return poolIndex_.get(key);
+	}
+
+	private int methodConstant(String owner, String name, String descriptor) throws IOException {
+		String key = "Method " + owner + "." + name + descriptor;
+		if (!poolIndex_.containsKey(key)) {
+			int ownerIndex = classConstant(owner);
+			int nameIndex = utf8Constant(name);
+			int descriptorIndex = utf8Constant(descriptor);
+			DataOutputStream out = new DataOutputStream(pool_);
+			// the name and type, then the method ref pointing to it
+			out.writeByte(12);
+			out.writeShort(nameIndex);
+			out.writeShort(descriptorIndex);
+			out.writeByte(10);
+			out.writeShort(ownerIndex);
+			out.writeShort(poolCount_);
+			poolIndex_.put(key, poolCount_ + 1);
+			poolCount_ += 2;
+		}
+		return poolIndex_.get(key);
+	}
+
+	private int longConstant(long value) throws IOException {
+		String key = "Long " + value;
+		if (!poolIndex_.containsKey(key)) {
+			DataOutputStream out = new DataOutputStream(pool_);
+			out.writeByte(5);
+			out.writeLong(value);
+			poolIndex_.put(key, poolCount_);
+			// a long takes up two places in the constant pool
+			poolCount_ += 2;
+		}
+		return poolIndex_.get(key);
+	}
+}
@@ -0,0 +1,155 @@
+import java.util.Arrays;
+
+// The interpreter: runs an FSM over lines, keeping the lists of states it can be in from one match attempt to the next so nothing is allocated per line
+// A BRANCH state is never put on the lists: whenever a state is reached the FSM's epsilon closure of it (every state reachable through
+// BRANCH states alone) is added instead, so the loop over each character only sees states that read a character, FINISHED, and the
+// anchors and counters, which depend on the position and counts and so cannot be folded into the closures
+class Simulation implements Engine {
+	// The counts reached by each counter in the FSM
+	private Counters counters_;
+	// The kind, symbol, set, next states and epsilon closure of every state, taken out of the FSM once
+	private int[] kind_;
+	private char[] symbol_;
+	private long[][] set_;
+	private int[] next1_;
+	private int[] next2_;
+	private int[][] closure_;
+	// The states we could be in at the current character, and at the next character
+	private int[] curr_;
+	private int[] next_;
+	private int currCount_;
+	private int nextCount_;
+	// The character each state was last put on curr_ and on next_ for, so no state goes on either list twice
+	private long[] onCurr_;
+	private long[] onNext_;
+	// Goes up by one for every character read, and jumps on for every new match attempt, so the lists never need clearing
+	private long clock_;
+
+	// Public constructor that takes the FSM to run
+	public Simulation(FSM fsm) {
+		counters_ = new Counters(fsm);
+		int size = fsm.size();
+		kind_ = new int[size];
+		symbol_ = new char[size];
+		set_ = new long[size][];
+		next1_ = new int[size];
+		next2_ = new int[size];
+		closure_ = new int[size][];
+		for (int i = 0; i < size; i++) {
+			kind_[i] = fsm.getKind(i);
+			symbol_[i] = fsm.getSymbol(i);
+			set_[i] = fsm.getSet(i);
+			next1_[i] = fsm.getNextStates(i)[0];
+			next2_[i] = fsm.getNextStates(i)[1];
+			closure_[i] = fsm.getClosure(i);
+		}
+		curr_ = new int[size];
+		next_ = new int[size];
+		onCurr_ = new long[size];
+		onNext_ = new long[size];
+		Arrays.fill(onCurr_, -1);
+		Arrays.fill(onNext_, -1);
+		clock_ = 0;
+	}
+
+	// Runs the FSM over the line, as described in Engine
+	public int match(String line, int mark, int step) {
+		int length = line.length();
+		int index = 0;
+		// Nothing from earlier attempts carries over
+		clock_ += 2;
+		counters_.restart();
+		currCount_ = 0;
+		nextCount_ = 0;
+		// Start at the start of the FSM (state 0)
+		addToCurr(0);
+
+		// While we still have possible current states we can be in...
+		while (currCount_ > 0) {
+			// The position in the line we have reached, and the character to be read from there
+			int position = mark + step * index;
+			int charIndex = (step > 0) ? position : position - 1;
+			boolean inLine = charIndex >= 0 && charIndex < length;
+			char c = inLine ? line.charAt(charIndex) : 0;
+			// Go through the possible current states, which anchors and counters can still add to as we go
+			for (int k = 0; k < currCount_; k++) {
+				int s = curr_[k];
+				switch (kind_[s]) {
+					case FSM.FINISHED:
+						// We have found a match
+						return position;
+					case FSM.LITERAL:
+					case FSM.WILD:
+					case FSM.SET:
+						// Check if the state matches the character we are currently reading from the line...
+						if (inLine && (kind_[s] == FSM.WILD || (kind_[s] == FSM.LITERAL ? symbol_[s] == c : FSM.inSet(set_[s], c)))) {
+							// If the next state indicates this state is a trap state, because we have already matched then we have failed this match
+							if (next1_[s] == -1) {
+								return -1;
+							}
+							// Otherwise add the next states of this state to the list of possible next states
+							addToNext(next1_[s]);
+							addToNext(next2_[s]);
+						}
+						break;
+					case FSM.BOL:
+						if (position == 0) {
+							addToCurr(next1_[s]);
+						}
+						break;
+					case FSM.EOL:
+						if (position == length) {
+							addToCurr(next1_[s]);
+						}
+						break;
+					case FSM.COUNT:
+					case FSM.LOOP:
+						// Start a count of 0 or add one to the counts that went through the body, and see where the counter can go now
+						int countState = (kind_[s] == FSM.COUNT) ? s : next1_[s];
+						int moves = (kind_[s] == FSM.COUNT) ? counters_.enter(countState) : counters_.repeat(countState);
+						if ((moves & Counters.BODY) != 0) {
+							addToCurr(next1_[countState]);
+						}
+						if ((moves & Counters.EXIT) != 0) {
+							addToCurr(next2_[countState]);
+						}
+						break;
+				}
+			}
+			// The possible next states become the possible current states, and we move on a character
+			int[] swap = curr_;
+			curr_ = next_;
+			next_ = swap;
+			long[] swapOn = onCurr_;
+			onCurr_ = onNext_;
+			onNext_ = swapOn;
+			currCount_ = nextCount_;
+			nextCount_ = 0;
+			index++;
+			clock_++;
+			counters_.step();
+		}
+		// We ran out of states we could be in, so there is no match starting at this point in the line
+		return -1;
+	}
+
+	// Adds the epsilon closure of the state to the possible current states
+	private void addToCurr(int state) {
+		for (int s : closure_[state]) {
+			if (onCurr_[s] != clock_) {
+				onCurr_[s] = clock_;
+				curr_[currCount_++] = s;
+			}
+		}
+	}
+
+	// Adds the epsilon closure of the state to the possible next states
+	private void addToNext(int state) {
+		for (int s : closure_[state]) {
+			if (onNext_[s] != clock_ + 1) {
+				onNext_[s] = clock_ + 1;
+				next_[nextCount_++] = s;
+			}
+		}
+	}
+}